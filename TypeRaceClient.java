@@ -2,19 +2,50 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.swing.*;
 import javax.swing.border.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Highlighter;
 
 public class TypeRaceClient extends JFrame {
+    private static final int FRAME_MS = 16;
+    // Matches TypeRaceServer.PROGRESS_INTERVAL_MS plus headroom for arrival jitter,
+    // so a car is still gliding when the next update lands instead of stopping first
+    private static final int INTERPOLATION_MS = 250;
+
     private Socket socket;
     private PrintWriter out;
     private BufferedReader in;
+    private DatagramChannel udpChannel;
+    private long udpToken;
+    private volatile boolean udpReady;
+    private long progressSeq;
+    private long lastServerSeq = -1;
     private String clientName;
-    private String currentSentence = "";
-    private Map<String, Integer> racers = new HashMap<>();
-    private Map<String, Integer> wpmResults = new HashMap<>();
+    private int passageLength;
+    private int wordsTyped;
+    private int liveWpm;
+    private int windowStart;
+    private int committedChars;
+    private StringBuilder passageWindow = new StringBuilder();
+    private Deque<Integer> windowChunkLengths = new ArrayDeque<>();
+    private Deque<int[]> untypedChunkWords = new ArrayDeque<>();
+    private final AtomicReference<RaceSnapshot> raceSnapshot =
+        new AtomicReference<>(new RaceSnapshot(new HashMap<>(), new LinkedHashMap<>(), 0));
+    private Map<String, Integer> wpmResults = new ConcurrentHashMap<>();
+    private int localProgress;
+    private javax.swing.Timer renderTimer;
     private JTextArea textArea;
+    private Object correctHighlight;
+    private Object errorHighlight;
+    private Object cursorHighlight;
     private JTextField inputField;
     private JPanel raceTrackPanel;
     private boolean raceFinished = false;
@@ -83,6 +114,14 @@ public class TypeRaceClient extends JFrame {
         raceTrackPanel.setBorder(new EmptyBorder(20, 20, 20, 20));
         add(raceTrackPanel, BorderLayout.CENTER);
 
+        // Repaint at a fixed rate while cars are still gliding toward the last update
+        renderTimer = new javax.swing.Timer(FRAME_MS, e -> {
+            if (!raceSnapshot.get().isSettled(System.currentTimeMillis())) {
+                raceTrackPanel.repaint();
+            }
+        });
+        renderTimer.start();
+
         // Countdown label
         countdownLabel = new JLabel("Waiting for players...", SwingConstants.CENTER);
         countdownLabel.setFont(customFont.deriveFont(Font.BOLD, 24));
@@ -101,6 +140,22 @@ public class TypeRaceClient extends JFrame {
             new LineBorder(new Color(200, 200, 220), 2),
             new EmptyBorder(10, 10, 10, 10)
         ));
+
+        // Typing feedback moves these ranges instead of restyling the text. Layered
+        // highlights repaint their whole range on every change; plain ones only
+        // repaint the offsets between the old and new end
+        DefaultHighlighter highlighter = (DefaultHighlighter) textArea.getHighlighter();
+        highlighter.setDrawsLayeredHighlights(false);
+        try {
+            correctHighlight = highlighter.addHighlight(0, 0,
+                new DefaultHighlighter.DefaultHighlightPainter(new Color(190, 240, 190)));
+            errorHighlight = highlighter.addHighlight(0, 0,
+                new DefaultHighlighter.DefaultHighlightPainter(new Color(255, 180, 180)));
+            cursorHighlight = highlighter.addHighlight(0, 0,
+                new DefaultHighlighter.DefaultHighlightPainter(new Color(180, 200, 255)));
+        } catch (BadLocationException e) {
+            // Offset 0 is always valid
+        }
         
         JScrollPane scrollPane = new JScrollPane(textArea);
         scrollPane.setPreferredSize(new Dimension(900, 100));
@@ -133,6 +188,7 @@ public class TypeRaceClient extends JFrame {
         int trackHeight = 100;
         int startY = 80;
         int trackWidth = 800;
+        Map<String, Double> racers = raceSnapshot.get().positionsAt(System.currentTimeMillis());
 
         // Draw track with gradient and border
         GradientPaint gp = new GradientPaint(
@@ -179,10 +235,15 @@ public class TypeRaceClient extends JFrame {
 
         // Draw all racers
         int i = 0;
-        for (Map.Entry<String, Integer> entry : racers.entrySet()) {
+        for (Map.Entry<String, Double> entry : racers.entrySet()) {
             String name = entry.getKey();
-            int progress = entry.getValue();
-            int carX = 50 + (int) (750 * ((double) progress / currentSentence.length()));
+            // Our own car follows the keyboard instead of waiting on the server
+            double progress = name.equals(clientName) ? localProgress : entry.getValue();
+            if (wpmResults.containsKey(name)) {
+                // A finished car sits on the line even if its last snapshot went missing
+                progress = passageLength;
+            }
+            int carX = 50 + (int) (750 * (progress / passageLength));
             int carY = startY + i * trackHeight - 15;
 
             // Draw car (image or graphic)
@@ -198,13 +259,15 @@ public class TypeRaceClient extends JFrame {
             if (wpmResults.containsKey(name)) {
                 info += " - " + wpmResults.get(name) + " WPM";
                 g2d.setColor(new Color(0, 120, 0)); // Dark green for finished players
+            } else if (name.equals(clientName) && liveWpm > 0) {
+                info += " - " + liveWpm + " WPM";
             }
             
             g2d.setFont(customFont.deriveFont(Font.BOLD, 18));
             g2d.drawString(info, 60, carY - 5);
 
             // Draw progress percentage
-            int percent = (int) ((double) progress / currentSentence.length() * 100);
+            int percent = (int) (progress / passageLength * 100);
             g2d.setColor(Color.BLACK);
             g2d.drawString(percent + "%", carX + 80, carY + 15);
 
@@ -307,30 +370,103 @@ public class TypeRaceClient extends JFrame {
     private void checkTypingProgress() {
         if (raceFinished) return;
         
+        // The input field only holds what was typed since the last completed word
         String typedText = inputField.getText();
-        int correctChars = 0;
+        int windowOffset = committedChars - windowStart;
+        int matched = 0;
 
-        for (int i = 0; i < typedText.length() && i < currentSentence.length(); i++) {
-            if (typedText.charAt(i) == currentSentence.charAt(i)) {
-                correctChars++;
-            } else {
-                break;
-            }
+        while (matched < typedText.length() && windowOffset + matched < passageWindow.length()
+                && typedText.charAt(matched) == passageWindow.charAt(windowOffset + matched)) {
+            matched++;
+        }
+        int correctChars = committedChars + matched;
+        if (correctChars != localProgress) {
+            localProgress = correctChars;
+            raceTrackPanel.repaint();
         }
 
-        out.println("PROGRESS:" + correctChars);
+        sendProgress(correctChars);
+        updateHighlights(correctChars, committedChars + typedText.length());
+        countCompletedChunks(correctChars);
 
-        if (correctChars == currentSentence.length()) {
-            long endTime = System.currentTimeMillis();
-            double minutes = (endTime - startTime) / 60000.0;
-            int wordCount = currentSentence.split(" ").length;
-            int wpm = (int) (wordCount / minutes);
-            
-            showWpmResult(wpm);
+        if (correctChars == passageLength) {
+            showWpmResult(liveWpm);
             inputField.setEditable(false);
+        } else if (matched > 0 && matched == typedText.length() && typedText.charAt(matched - 1) == ' ') {
+            committedChars = correctChars;
+            inputField.setText("");
+            trimPassageWindow();
+        }
+    }
+
+    private void countCompletedChunks(int correctChars) {
+        // Each chunk's words count once its last character is typed, so WPM stays
+        // live through a marathon without ever totalling the whole passage
+        boolean completed = false;
+        while (!untypedChunkWords.isEmpty() && untypedChunkWords.peekFirst()[0] <= correctChars) {
+            wordsTyped += untypedChunkWords.removeFirst()[1];
+            completed = true;
+        }
+        if (completed) {
+            double minutes = (System.currentTimeMillis() - startTime) / 60000.0;
+            liveWpm = (int) (wordsTyped / minutes);
+            raceTrackPanel.repaint();
+        }
+    }
+
+    private void updateHighlights(int correctChars, int typedChars) {
+        // Offsets are relative to the window. The correct range keeps its start at 0,
+        // so only its growing end is repainted; the error and cursor ranges span the current word
+        int length = passageWindow.length();
+        int correctEnd = Math.min(correctChars - windowStart, length);
+        int errorEnd = Math.max(correctEnd, Math.min(typedChars - windowStart, length));
+        int cursorEnd = Math.min(errorEnd + 1, length);
+
+        Highlighter highlighter = textArea.getHighlighter();
+        try {
+            highlighter.changeHighlight(correctHighlight, 0, correctEnd);
+            highlighter.changeHighlight(errorHighlight, correctEnd, errorEnd);
+            highlighter.changeHighlight(cursorHighlight, errorEnd, cursorEnd);
+        } catch (BadLocationException e) {
+            // Offsets are clamped to the window above
+        }
+    }
+
+    private void resetPassage(int length) {
+        passageLength = length;
+        wordsTyped = 0;
+        liveWpm = 0;
+        untypedChunkWords.clear();
+        localProgress = 0;
+        windowStart = 0;
+        committedChars = 0;
+        passageWindow.setLength(0);
+        windowChunkLengths.clear();
+        textArea.setText("");
+    }
+
+    private void appendChunk(String chunk) {
+        passageWindow.append(chunk);
+        windowChunkLengths.addLast(chunk.length());
+        untypedChunkWords.addLast(new int[]{windowStart + passageWindow.length(), chunk.trim().split(" ").length});
+        textArea.append(chunk);
+        textArea.setCaretPosition(committedChars - windowStart);
+        if (windowChunkLengths.size() == 1) {
+            updateHighlights(committedChars, committedChars);
         }
     }
 
+    private void trimPassageWindow() {
+        // Drop chunks the typist has fully passed so the text area stays small
+        while (windowChunkLengths.size() > 1 && windowStart + windowChunkLengths.peekFirst() <= committedChars) {
+            int length = windowChunkLengths.removeFirst();
+            passageWindow.delete(0, length);
+            textArea.replaceRange("", 0, length);
+            windowStart += length;
+        }
+        textArea.setCaretPosition(committedChars - windowStart);
+    }
+
     private void showWpmResult(int wpm) {
         JPanel panel = new JPanel(new BorderLayout(0, 20));
         panel.setBackground(new Color(240, 245, 255));
@@ -379,6 +515,105 @@ public class TypeRaceClient extends JFrame {
         return "Keep practicing to improve!";
     }
 
+    private void sendProgress(int correctChars) {
+        // The finishing update always goes over TCP so it can't be lost
+        if (udpReady && correctChars < passageLength) {
+            String message = "PROGRESS:" + udpToken + ":" + (++progressSeq) + ":" + correctChars;
+            try {
+                udpChannel.write(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)));
+                return;
+            } catch (IOException e) {
+                disableUdp();
+            }
+        }
+        out.println("PROGRESS:" + correctChars);
+    }
+
+    private void openUdpChannel(long token) {
+        try {
+            udpToken = token;
+            udpChannel = DatagramChannel.open();
+            udpChannel.connect(new InetSocketAddress(socket.getInetAddress(), socket.getPort()));
+            new Thread(this::listenForDatagrams).start();
+            new Thread(this::sendUdpHello).start();
+        } catch (IOException e) {
+            // Progress stays on the TCP connection
+            udpChannel = null;
+        }
+    }
+
+    private void sendUdpHello() {
+        ByteBuffer hello = ByteBuffer.wrap(("HELLO:" + udpToken).getBytes(StandardCharsets.UTF_8));
+        try {
+            for (int attempt = 0; attempt < 5 && !udpReady; attempt++) {
+                hello.rewind();
+                udpChannel.write(hello);
+                Thread.sleep(500);
+            }
+        } catch (IOException | InterruptedException e) {
+            // Treated the same as getting no answer
+        }
+        if (!udpReady) {
+            // Progress stays on TCP; closing the channel also stops the listener
+            disableUdp();
+        }
+    }
+
+    private void listenForDatagrams() {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        try {
+            while (true) {
+                buffer.clear();
+                udpChannel.read(buffer);
+                buffer.flip();
+                String message = StandardCharsets.UTF_8.decode(buffer).toString();
+
+                if (message.equals("WELCOME")) {
+                    if (!udpReady) {
+                        udpReady = true;
+                        out.println("UDP_READY");
+                    }
+                } else if (message.startsWith("PROGRESS:")) {
+                    // Format is PROGRESS:<seq>:<name,progress;...>; drop anything older than what
+                    // we've shown, and anything still in flight after falling back to TCP
+                    int split = message.indexOf(':', 9);
+                    long seq = Long.parseLong(message.substring(9, split));
+                    if (udpReady && seq > lastServerSeq) {
+                        lastServerSeq = seq;
+                        updateRacers(message.substring(split + 1));
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            disableUdp();
+        }
+    }
+
+    private void disableUdp() {
+        if (udpReady) {
+            udpReady = false;
+            out.println("UDP_OFF");
+        }
+        try {
+            udpChannel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    private void updateRacers(String progressData) {
+        // Called from both the TCP and UDP threads; the render timer picks up the swap
+        Map<String, Integer> positions = new LinkedHashMap<>();
+        for (String entry : progressData.split(";")) {
+            if (!entry.isEmpty()) {
+                String[] parts = entry.split(",");
+                positions.put(parts[0], Integer.parseInt(parts[1]));
+            }
+        }
+        long now = System.currentTimeMillis();
+        raceSnapshot.updateAndGet(current -> new RaceSnapshot(current.positionsAt(now), positions, now));
+    }
+
     private void connectToServer() {
         try {
             socket = new Socket("localhost", 5555);
@@ -403,26 +638,37 @@ public class TypeRaceClient extends JFrame {
             String message;
             while ((message = in.readLine()) != null) {
                 if (message.startsWith("SENTENCE:")) {
-                    currentSentence = message.substring(9);
+                    String sentence = message.substring(9);
                     SwingUtilities.invokeLater(() -> {
-                        textArea.setText(currentSentence);
+                        resetPassage(sentence.length());
+                        appendChunk(sentence);
                         inputField.setText("");
                         inputField.setEnabled(true);
                         inputField.requestFocus();
                         startTime = System.currentTimeMillis();
                         raceFinished = false;
                     });
+                } else if (message.startsWith("MARATHON:")) {
+                    int length = Integer.parseInt(message.substring(9));
+                    SwingUtilities.invokeLater(() -> {
+                        resetPassage(length);
+                        inputField.setText("");
+                        inputField.setEnabled(true);
+                        inputField.requestFocus();
+                        startTime = System.currentTimeMillis();
+                        raceFinished = false;
+                    });
+                } else if (message.startsWith("CHUNK:")) {
+                    // Format is CHUNK:<index>:<text>; chunks arrive in order
+                    String chunk = message.substring(message.indexOf(':', 6) + 1);
+                    SwingUtilities.invokeLater(() -> appendChunk(chunk));
                 } else if (message.startsWith("PROGRESS:")) {
-                    String progressData = message.substring(9);
-                    racers.clear();
-                    for (String entry : progressData.split(";")) {
-                        if (!entry.isEmpty()) {
-                            String[] parts = entry.split(",");
-                            racers.put(parts[0], Integer.parseInt(parts[1]));
-                        }
-                    }
-                    SwingUtilities.invokeLater(raceTrackPanel::repaint);
+                    updateRacers(message.substring(9));
+                } else if (message.startsWith("UDP_TOKEN:")) {
+                    openUdpChannel(Long.parseLong(message.substring(10)));
                 } else if (message.startsWith("GAME_START")) {
+                    // Put every car back on the start line rather than sliding back from the last race
+                    raceSnapshot.updateAndGet(RaceSnapshot::atStart);
                     SwingUtilities.invokeLater(() -> {
                         countdownLabel.setText("Race started! Type the sentence below:");
                         inputField.setEnabled(true);
@@ -465,6 +711,46 @@ public class TypeRaceClient extends JFrame {
         }
     }
 
+    /**
+     * Where each car was drawn when an update arrived and where the server
+     * says it is now. Snapshots are never modified, so the EDT can read the
+     * current one while the network threads build and atomically swap in the next.
+     */
+    private static class RaceSnapshot {
+        private final Map<String, Double> from;
+        private final Map<String, Integer> to;
+        private final long receivedAt;
+
+        public RaceSnapshot(Map<String, Double> from, Map<String, Integer> to, long receivedAt) {
+            this.from = from;
+            this.to = to;
+            this.receivedAt = receivedAt;
+        }
+
+        public Map<String, Double> positionsAt(long now) {
+            double alpha = Math.min(1.0, (now - receivedAt) / (double) INTERPOLATION_MS);
+            Map<String, Double> positions = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> entry : to.entrySet()) {
+                double target = entry.getValue();
+                double start = from.getOrDefault(entry.getKey(), target);
+                positions.put(entry.getKey(), start + (target - start) * alpha);
+            }
+            return positions;
+        }
+
+        public RaceSnapshot atStart() {
+            Map<String, Integer> positions = new LinkedHashMap<>();
+            for (String name : to.keySet()) {
+                positions.put(name, 0);
+            }
+            return new RaceSnapshot(new HashMap<>(), positions, 0);
+        }
+
+        public boolean isSettled(long now) {
+            return now - receivedAt >= INTERPOLATION_MS;
+        }
+    }
+
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
             try {
@@ -1,5 +1,9 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -8,6 +12,14 @@ public class TypeRaceServer {
     private static final int MIN_PLAYERS = 2;
     private static final int MAX_PLAYERS = 4;
     private static final int COUNTDOWN_SECONDS = 5;
+    private static final String CORPUS_FILE = "corpus.txt";
+    private static final int MARATHON_WORDS = 2000;
+    private static final int MAX_SENTENCE_CHARS = 200;
+    private static final int CHUNK_CHARS = 500;
+    private static final int CHUNK_LOOKAHEAD = 2;
+    private static final int MAX_DATAGRAM = 8192;
+    // TypeRaceClient.INTERPOLATION_MS is tuned to this; change them together
+    private static final int PROGRESS_INTERVAL_MS = 200;
     private static final List<String> SENTENCES = Arrays.asList(
         "The quick brown fox jumps over the lazy dog while the sun shines brightly in the clear blue sky above them all",
         "Programming computers is incredibly rewarding when you finally solve that tricky bug after hours of debugging",
@@ -20,20 +32,33 @@ public class TypeRaceServer {
     );
 
     private ServerSocket serverSocket;
+    private DatagramChannel udpChannel;
+    private boolean udpEnabled;
+    private Map<Long, ClientHandler> udpTokens;
+    private long progressSeq;
     private ExecutorService executorService;
     private List<ClientHandler> clients;
-    private String currentSentence;
+    private List<String> corpus;
+    private boolean marathon;
+    private Passage currentPassage;
     private boolean gameRunning;
     private Map<String, Integer> clientProgress;
     private Map<String, Long> finishTimes;
     private Map<String, Integer> wpmResults;
     private long gameStartTime;
     private ScheduledExecutorService gameScheduler;
+    private ScheduledExecutorService progressScheduler;
+    private boolean progressDirty;
     private int countdown;
 
-    public TypeRaceServer() {
+    public TypeRaceServer(boolean marathon, boolean udpEnabled) {
+        this.marathon = marathon;
+        this.udpEnabled = udpEnabled;
+        udpTokens = new ConcurrentHashMap<>();
+        corpus = loadCorpus();
         executorService = Executors.newCachedThreadPool();
         gameScheduler = Executors.newScheduledThreadPool(1);
+        progressScheduler = Executors.newSingleThreadScheduledExecutor();
         clients = new CopyOnWriteArrayList<>();
         clientProgress = new ConcurrentHashMap<>();
         finishTimes = new ConcurrentHashMap<>();
@@ -42,10 +67,58 @@ public class TypeRaceServer {
         countdown = COUNTDOWN_SECONDS;
     }
 
+    private List<String> loadCorpus() {
+        List<String> lines = new ArrayList<>(SENTENCES);
+        File corpusFile = new File(CORPUS_FILE);
+        if (!corpusFile.exists()) {
+            return lines;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(corpusFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                addCorpusLine(lines, line);
+            }
+            System.out.println("Loaded " + (lines.size() - SENTENCES.size()) + " sentences from " + CORPUS_FILE);
+        } catch (IOException e) {
+            System.err.println("Could not read " + CORPUS_FILE + ": " + e.getMessage());
+        }
+        return lines;
+    }
+
+    private static void addCorpusLine(List<String> lines, String line) {
+        // Split paragraphs into sentences, and wrap any that are still too long,
+        // so a single corpus entry can never make an oversized chunk
+        for (String sentence : line.trim().split("(?<=[.!?])\\s+")) {
+            StringBuilder piece = new StringBuilder();
+            for (String word : sentence.split("\\s+")) {
+                if (word.isEmpty()) continue;
+                if (piece.length() > 0 && piece.length() + 1 + word.length() > MAX_SENTENCE_CHARS) {
+                    lines.add(piece.toString());
+                    piece.setLength(0);
+                }
+                if (piece.length() > 0) {
+                    piece.append(' ');
+                }
+                piece.append(word);
+            }
+            if (piece.length() > 0) {
+                lines.add(piece.toString());
+            }
+        }
+    }
+
     public void start() {
         try {
             serverSocket = new ServerSocket(PORT);
-            System.out.println("Server started on port " + PORT);
+            System.out.println("Server started on port " + PORT + (marathon ? " (marathon mode)" : ""));
+            if (udpEnabled) {
+                openUdpChannel();
+            }
+
+            // Clients interpolate between updates, so progress goes out on a fixed tick
+            progressScheduler.scheduleAtFixedRate(this::flushProgress,
+                PROGRESS_INTERVAL_MS, PROGRESS_INTERVAL_MS, TimeUnit.MILLISECONDS);
             System.out.println("Waiting for players to connect...");
 
             while (true) {
@@ -75,6 +148,60 @@ public class TypeRaceServer {
         }
     }
 
+    private void openUdpChannel() {
+        try {
+            udpChannel = DatagramChannel.open();
+            udpChannel.bind(new InetSocketAddress(PORT));
+            executorService.execute(this::listenForDatagrams);
+            System.out.println("UDP progress channel open on port " + PORT);
+        } catch (IOException e) {
+            System.err.println("UDP unavailable, progress will use TCP: " + e.getMessage());
+            udpChannel = null;
+        }
+    }
+
+    private void listenForDatagrams() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM);
+        while (true) {
+            try {
+                buffer.clear();
+                SocketAddress sender = udpChannel.receive(buffer);
+                buffer.flip();
+                String message = StandardCharsets.UTF_8.decode(buffer).toString();
+
+                if (message.startsWith("HELLO:")) {
+                    // Answer over UDP so the client knows both directions work
+                    ClientHandler client = udpTokens.get(Long.parseLong(message.substring(6)));
+                    if (client != null) {
+                        client.setUdpAddress(sender);
+                        sendDatagram("WELCOME", sender);
+                    }
+                } else if (message.startsWith("PROGRESS:")) {
+                    // Format is PROGRESS:<token>:<seq>:<progress>
+                    String[] parts = message.substring(9).split(":");
+                    ClientHandler client = udpTokens.get(Long.parseLong(parts[0]));
+                    if (client != null && gameRunning) {
+                        handleDatagramProgress(client, Long.parseLong(parts[1]), Integer.parseInt(parts[2]));
+                    }
+                }
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("UDP error: " + e.getMessage());
+            } catch (RuntimeException e) {
+                System.err.println("Ignoring malformed datagram: " + e.getMessage());
+            }
+        }
+    }
+
+    private void sendDatagram(String message, SocketAddress address) {
+        try {
+            udpChannel.send(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)), address);
+        } catch (IOException e) {
+            System.err.println("Error sending datagram: " + e.getMessage());
+        }
+    }
+
     private void startCountdown() {
         System.out.println("Starting countdown for game...");
         gameRunning = true;
@@ -94,9 +221,13 @@ public class TypeRaceServer {
     private synchronized void startGame() {
         System.out.println("Game starting with " + clients.size() + " players");
         
-        // Select a random sentence
+        // Select a random sentence, or a long run of corpus sentences for a marathon
         Random random = new Random();
-        currentSentence = SENTENCES.get(random.nextInt(SENTENCES.size()));
+        if (marathon) {
+            currentPassage = buildMarathonPassage(random);
+        } else {
+            currentPassage = new Passage(corpus, new int[]{random.nextInt(SENTENCES.size())}, CHUNK_CHARS);
+        }
         
         clientProgress.clear();
         finishTimes.clear();
@@ -104,30 +235,70 @@ public class TypeRaceServer {
 
         for (ClientHandler client : clients) {
             clientProgress.put(client.getClientName(), 0);
+            client.resetChunks();
         }
+        // Send the all-zero positions on the next tick even if nobody has typed yet
+        progressDirty = true;
 
         gameStartTime = System.currentTimeMillis();
         broadcastMessage("GAME_START");
-        broadcastMessage("SENTENCE:" + currentSentence);
+        if (!marathon) {
+            broadcastMessage("SENTENCE:" + currentPassage.getChunk(0));
+        } else {
+            // Marathon passages are streamed a few chunks ahead of each typist
+            broadcastMessage("MARATHON:" + currentPassage.getLength());
+            for (ClientHandler client : clients) {
+                client.sendChunksAhead(0);
+            }
+        }
+    }
+
+    private Passage buildMarathonPassage(Random random) {
+        List<Integer> picks = new ArrayList<>();
+        int words = 0;
+        while (words < MARATHON_WORDS) {
+            int id = random.nextInt(corpus.size());
+            picks.add(id);
+            words += corpus.get(id).split(" ").length;
+        }
+
+        int[] sentenceIds = new int[picks.size()];
+        for (int i = 0; i < sentenceIds.length; i++) {
+            sentenceIds[i] = picks.get(i);
+        }
+        return new Passage(corpus, sentenceIds, CHUNK_CHARS);
     }
 
-    private synchronized void handlePlayerProgress(String clientName, int progress) {
+    private synchronized void handlePlayerProgress(ClientHandler client, int progress) {
+        String clientName = client.getClientName();
         clientProgress.put(clientName, progress);
-        broadcastProgress();
+        progressDirty = true;
+        client.sendChunksAhead(progress);
 
-        if (progress >= currentSentence.length() && !finishTimes.containsKey(clientName)) {
+        if (progress >= currentPassage.getLength() && !finishTimes.containsKey(clientName)) {
+            // The finishing snapshot must not be lost, so it goes over TCP to everyone
+            progressDirty = false;
+            broadcastProgress(true);
             handlePlayerFinish(clientName);
         }
     }
 
+    private synchronized void handleDatagramProgress(ClientHandler client, long seq, int progress) {
+        // Datagrams can arrive late or twice; only newer snapshots count, and none
+        // once the client has fallen back to TCP
+        if (!client.isUdpReady() || seq <= client.lastUdpSeq
+                || finishTimes.containsKey(client.getClientName())) return;
+        client.lastUdpSeq = seq;
+        handlePlayerProgress(client, progress);
+    }
+
     private synchronized void handlePlayerFinish(String clientName) {
         long finishTime = System.currentTimeMillis();
         finishTimes.put(clientName, finishTime);
         
         // Calculate WPM (words per minute)
         double minutes = (finishTime - gameStartTime) / 60000.0;
-        int wordCount = currentSentence.split(" ").length;
-        int wpm = (int) (wordCount / minutes);
+        int wpm = (int) (currentPassage.getWordCount() / minutes);
         wpmResults.put(clientName, wpm);
         
         System.out.println(clientName + " finished with " + wpm + " WPM");
@@ -168,12 +339,29 @@ public class TypeRaceServer {
         }
     }
 
-    private void broadcastProgress() {
+    private synchronized void flushProgress() {
+        if (progressDirty) {
+            progressDirty = false;
+            broadcastProgress(false);
+        }
+    }
+
+    private void broadcastProgress(boolean reliable) {
         StringBuilder progressMsg = new StringBuilder("PROGRESS:");
         for (Map.Entry<String, Integer> entry : clientProgress.entrySet()) {
             progressMsg.append(entry.getKey()).append(",").append(entry.getValue()).append(";");
         }
-        broadcastMessage(progressMsg.toString());
+
+        // UDP snapshots carry a sequence number so clients can drop stale ones
+        long seq = ++progressSeq;
+        String udpMsg = "PROGRESS:" + seq + ":" + progressMsg.substring(9);
+        for (ClientHandler client : clients) {
+            if (!reliable && client.isUdpReady()) {
+                sendDatagram(udpMsg, client.getUdpAddress());
+            } else {
+                client.sendMessage(progressMsg.toString());
+            }
+        }
     }
 
     private void shutdown() {
@@ -181,20 +369,99 @@ public class TypeRaceServer {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
+            if (udpChannel != null) {
+                udpChannel.close();
+            }
             executorService.shutdown();
             gameScheduler.shutdown();
+            progressScheduler.shutdown();
             System.out.println("Server shutdown complete");
         } catch (IOException e) {
             System.err.println("Error during shutdown: " + e.getMessage());
         }
     }
 
+    /**
+     * A race passage stored as indices into the corpus rather than as one big
+     * string, so chunk text is only built when it is about to be sent.
+     */
+    private static class Passage {
+        private final List<String> corpus;
+        private final int[] sentenceIds;
+        private final int[] chunkStarts;
+        private final int[] chunkFirstSentences;
+        private final int length;
+        private final int wordCount;
+
+        public Passage(List<String> corpus, int[] sentenceIds, int chunkChars) {
+            this.corpus = corpus;
+            this.sentenceIds = sentenceIds;
+
+            // A chunk closes once it reaches the character budget
+            List<Integer> starts = new ArrayList<>();
+            List<Integer> firstSentences = new ArrayList<>();
+            int offset = 0;
+            int chunkStart = 0;
+            int words = 0;
+            for (int i = 0; i < sentenceIds.length; i++) {
+                if (i == 0 || offset - chunkStart >= chunkChars) {
+                    chunkStart = offset;
+                    starts.add(offset);
+                    firstSentences.add(i);
+                }
+                String sentence = corpus.get(sentenceIds[i]);
+                offset += sentence.length() + (i < sentenceIds.length - 1 ? 1 : 0);
+                words += sentence.split(" ").length;
+            }
+            this.chunkStarts = starts.stream().mapToInt(Integer::intValue).toArray();
+            this.chunkFirstSentences = firstSentences.stream().mapToInt(Integer::intValue).toArray();
+            this.length = offset;
+            this.wordCount = words;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getWordCount() {
+            return wordCount;
+        }
+
+        public int getChunkCount() {
+            return chunkStarts.length;
+        }
+
+        public int getChunkIndexAt(int offset) {
+            int index = Arrays.binarySearch(chunkStarts, offset);
+            return index >= 0 ? index : -index - 2;
+        }
+
+        public String getChunk(int index) {
+            // Every chunk but the last keeps the space that separates it from the next
+            StringBuilder chunk = new StringBuilder();
+            int first = chunkFirstSentences[index];
+            int last = index + 1 < chunkFirstSentences.length ? chunkFirstSentences[index + 1] : sentenceIds.length;
+            for (int i = first; i < last; i++) {
+                chunk.append(corpus.get(sentenceIds[i]));
+                if (i < sentenceIds.length - 1) {
+                    chunk.append(' ');
+                }
+            }
+            return chunk.toString();
+        }
+    }
+
     private class ClientHandler implements Runnable {
         private Socket socket;
         private PrintWriter out;
         private BufferedReader in;
         private String clientName;
         private boolean readyForNewGame;
+        private int chunksSent;
+        private long udpToken;
+        private volatile SocketAddress udpAddress;
+        private volatile boolean udpReady;
+        private long lastUdpSeq = -1;
 
         public ClientHandler(Socket socket) {
             this.socket = socket;
@@ -213,6 +480,33 @@ public class TypeRaceServer {
             this.readyForNewGame = true;
         }
 
+        public void setUdpAddress(SocketAddress address) {
+            this.udpAddress = address;
+        }
+
+        public SocketAddress getUdpAddress() {
+            return udpAddress;
+        }
+
+        public boolean isUdpReady() {
+            return udpReady && udpAddress != null;
+        }
+
+        public void resetChunks() {
+            this.chunksSent = 0;
+        }
+
+        public void sendChunksAhead(int progress) {
+            if (!marathon) return;
+
+            int target = Math.min(currentPassage.getChunkCount(),
+                currentPassage.getChunkIndexAt(progress) + 1 + CHUNK_LOOKAHEAD);
+            while (chunksSent < target) {
+                sendMessage("CHUNK:" + chunksSent + ":" + currentPassage.getChunk(chunksSent));
+                chunksSent++;
+            }
+        }
+
         @Override
         public void run() {
             try {
@@ -224,13 +518,25 @@ public class TypeRaceServer {
                 System.out.println(clientName + " connected from " + socket.getInetAddress());
                 clientProgress.put(clientName, 0);
 
+                if (udpChannel != null) {
+                    udpToken = ThreadLocalRandom.current().nextLong();
+                    udpTokens.put(udpToken, this);
+                    sendMessage("UDP_TOKEN:" + udpToken);
+                }
+
                 String inputLine;
                 while ((inputLine = in.readLine()) != null) {
                     if (inputLine.startsWith("PROGRESS:")) {
                         if (!gameRunning) continue;
                         
                         int progress = Integer.parseInt(inputLine.substring(9));
-                        handlePlayerProgress(clientName, progress);
+                        handlePlayerProgress(this, progress);
+                    } else if (inputLine.equals("UDP_READY")) {
+                        udpReady = true;
+                        System.out.println(clientName + " switched progress to UDP");
+                    } else if (inputLine.equals("UDP_OFF")) {
+                        udpReady = false;
+                        System.out.println(clientName + " fell back to TCP progress");
                     }
                 }
             } catch (IOException e) {
@@ -243,6 +549,7 @@ public class TypeRaceServer {
         private void cleanup() {
             try {
                 clients.remove(this);
+                udpTokens.remove(udpToken);
                 clientProgress.remove(clientName);
                 finishTimes.remove(clientName);
                 
@@ -263,6 +570,7 @@ public class TypeRaceServer {
     }
 
     public static void main(String[] args) {
-        new TypeRaceServer().start();
+        List<String> options = Arrays.asList(args);
+        new TypeRaceServer(options.contains("marathon"), !options.contains("noudp")).start();
     }
 }
\ No newline at end of file